@@ -34,6 +34,32 @@ public class ClientAppInterface {
                     int serverPort = Integer.parseInt(params[1]);
                     engine.connect(serverIP, serverPort);
                 }
+                case "add_replica" -> {
+                    if (parts.length < 2) {
+                        System.out.println("Invalid Command, Usage: add_replica <replica_ip> <port>");
+                        break;
+                    }
+                    String[] params = parts[1].split(" ");
+                    if (params.length != 2) {
+                        System.out.println("Invalid Command, Usage: add_replica <replica_ip> <port>");
+                        break;
+                    }
+                    engine.addReplica(params[0], Integer.parseInt(params[1]));
+                }
+                case "tokenize" -> {
+                    if (parts.length < 2 || !(parts[1].equals("client") || parts[1].equals("server"))) {
+                        System.out.println("Invalid Command, Usage: tokenize <client|server>");
+                        break;
+                    }
+                    engine.setServerTokenization(parts[1].equals("server"));
+                }
+                case "positions" -> {
+                    if (parts.length < 2 || !(parts[1].equals("on") || parts[1].equals("off"))) {
+                        System.out.println("Invalid Command, Usage: positions <on|off>");
+                        break;
+                    }
+                    engine.setPositionalIndexing(parts[1].equals("on"));
+                }
                 case "get_info" -> {
                     long clientID = engine.getInfo();
                     System.out.println("Client ID: " + clientID);
@@ -62,7 +88,7 @@ public class ClientAppInterface {
                     scanner.close();
                     System.exit(0);
                 }
-                default -> System.out.println("Unrecognized command! Use: connect, index, search, get_info or quit.");
+                default -> System.out.println("Unrecognized command! Use: connect, add_replica, tokenize, positions, index, search, get_info or quit.");
             }
         }
     }
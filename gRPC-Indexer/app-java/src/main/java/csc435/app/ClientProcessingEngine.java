@@ -1,25 +1,31 @@
 package csc435.app;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Empty;
 
 import csc435.app.FileRetrievalEngineGrpc.FileRetrievalEngineBlockingStub;
+import csc435.app.FileRetrievalEngineGrpc.FileRetrievalEngineStub;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
 
 class IndexResult {
     public double executionTime;
@@ -54,9 +60,21 @@ class SearchResult {
 }
 
 public class ClientProcessingEngine {
+    private static final int DOCUMENT_CHUNK_SIZE = 64 * 1024;
+    private static final int DEFAULT_NEAR_DISTANCE = 5;
+    // Bounds one streamed document from first chunk to reply, so a stuck server cannot hang indexing
+    private static final long DOCUMENT_STREAM_TIMEOUT_SECONDS = 60;
+    private static final Pattern NEAR_PATTERN = Pattern.compile("(?i)\\bNEAR(?:/(\\d+))?\\b");
+
     private ManagedChannel channel;
     private FileRetrievalEngineBlockingStub stub;
+    private FileRetrievalEngineStub asyncStub;
+    private boolean serverTokenization = false;
+    private boolean positionalIndexing = false;
     private long clientId;
+    private final List<ManagedChannel> replicaChannels = new ArrayList<>();
+    private final List<FileRetrievalEngineBlockingStub> replicaStubs = new ArrayList<>();
+    private int nextSearchServer = 0;
 
     public ClientProcessingEngine() {}
 
@@ -66,12 +84,40 @@ public class ClientProcessingEngine {
     public void connect(String serverIP, int serverPort) {
         channel = ManagedChannelBuilder.forAddress(serverIP, serverPort).usePlaintext().build();
         stub = FileRetrievalEngineGrpc.newBlockingStub(channel);
+        asyncStub = FileRetrievalEngineGrpc.newStub(channel);
 
         RegisterRep response = stub.register(Empty.newBuilder().build());
         clientId = response.getClientId();
         System.out.println("Connected to server. Client ID: " + clientId);
     }
 
+    // When enabled, raw file bytes are streamed to the server and tokenized there instead of locally
+    public void setServerTokenization(boolean serverTokenization) {
+        this.serverTokenization = serverTokenization;
+        System.out.println("Tokenization mode: " + (serverTokenization ? "server" : "client"));
+    }
+
+    // When enabled, term positions are indexed alongside frequencies so PHRASE and NEAR queries can match
+    public void setPositionalIndexing(boolean positionalIndexing) {
+        this.positionalIndexing = positionalIndexing;
+        System.out.println("Positional indexing: " + (positionalIndexing ? "on" : "off"));
+    }
+
+    // Read replicas only serve searches, so they are used alongside the primary for queries
+    public void addReplica(String replicaIP, int replicaPort) {
+        ManagedChannel replicaChannel = ManagedChannelBuilder.forAddress(replicaIP, replicaPort).usePlaintext().build();
+        replicaChannels.add(replicaChannel);
+        replicaStubs.add(FileRetrievalEngineGrpc.newBlockingStub(replicaChannel));
+        System.out.println("Added search replica " + replicaIP + ":" + replicaPort);
+    }
+
+    // Round-robin searches over the primary and its replicas
+    private synchronized FileRetrievalEngineBlockingStub nextSearchStub() {
+        if (replicaStubs.isEmpty()) return stub;
+        int slot = nextSearchServer++ % (replicaStubs.size() + 1);
+        return slot == replicaStubs.size() && stub != null ? stub : replicaStubs.get(slot % replicaStubs.size());
+    }
+
 
     public void indexFolder(String folderPath) {
         File folder = new File(folderPath);
@@ -81,6 +127,8 @@ public class ClientProcessingEngine {
         }
     
         long totalBytesRead = crawlDirectory(folder);
+        // Make this folder's documents searchable now rather than at the server's next periodic refresh
+        stub.refresh(Empty.newBuilder().build());
         System.out.println("Indexing completed. Total bytes read: " + totalBytesRead);
     }
     
@@ -99,14 +147,20 @@ public class ClientProcessingEngine {
             } else if (file.isFile()) {
                 try {
                     bytesRead += file.length();
-                    HashMap<String, Long> wordFrequencies = computeWordFrequencies(file);
-                    IndexReq request = IndexReq.newBuilder()
-                            .setClientId((int) clientId)
-                            .setDocumentPath(file.getAbsolutePath())
-                            .putAllWordFrequencies(wordFrequencies)
-                            .build();
-    
-                    IndexRep response = stub.computeIndex(request);
+                    IndexRep response;
+                    if (serverTokenization) {
+                        response = streamDocument(file);
+                    } else {
+                        // Same tokenizer as the server-side path, so both modes index identical terms
+                        DocumentTokenizer tokenizer = DocumentTokenizer.tokenize(file.toPath(), positionalIndexing);
+                        IndexReq request = IndexReq.newBuilder()
+                                .setClientId((int) clientId)
+                                .setDocumentPath(file.getAbsolutePath())
+                                .putAllWordFrequencies(tokenizer.getWordFrequencies())
+                                .putAllTermPositions(tokenizer.getTermPositions())
+                                .build();
+                        response = stub.computeIndex(request);
+                    }
                     System.out.println(response.getMessage());
                 } catch (IOException e) {
                     System.err.println("Error reading file: " + file.getName());
@@ -118,33 +172,136 @@ public class ClientProcessingEngine {
     }
     
 
-private HashMap<String, Long> computeWordFrequencies(File file) throws IOException {
-    HashMap<String, Long> wordFrequencies = new HashMap<>();
-    Pattern wordPattern = Pattern.compile("[a-zA-Z0-9_-]{4,}"); // Only terms 4+ characters long
+    // Streams the raw file in fixed-size chunks; the first chunk also carries the client ID and path.
+    // A chunk is only read and sent once the stream is ready, so the server's pace bounds what is buffered.
+    private IndexRep streamDocument(File file) throws IOException {
+        CompletableFuture<IndexRep> reply = new CompletableFuture<>();
+        Object readiness = new Object();
+        ClientCallStreamObserver<DocumentChunk> requestObserver = (ClientCallStreamObserver<DocumentChunk>) asyncStub
+                .withDeadlineAfter(DOCUMENT_STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .computeIndexStream(new ClientResponseObserver<DocumentChunk, IndexRep>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<DocumentChunk> stream) {
+                stream.setOnReadyHandler(() -> {
+                    synchronized (readiness) {
+                        readiness.notifyAll();
+                    }
+                });
+            }
+
+            @Override
+            public void onNext(IndexRep response) {
+                reply.complete(response);
+            }
 
-    try (Stream<String> lines = Files.lines(Paths.get(file.getAbsolutePath()))) {
-        lines.forEach(line -> {
-            Matcher matcher = wordPattern.matcher(line.toLowerCase());
-            while (matcher.find()) {
-                String word = matcher.group();
-                wordFrequencies.put(word, wordFrequencies.getOrDefault(word, 0L) + 1);
+            @Override
+            public void onError(Throwable t) {
+                reply.completeExceptionally(t);
+                synchronized (readiness) {
+                    readiness.notifyAll();
+                }
             }
+
+            @Override
+            public void onCompleted() {}
         });
+
+        DocumentChunk header = DocumentChunk.newBuilder()
+                .setClientId((int) clientId)
+                .setDocumentPath(file.getAbsolutePath())
+                .setPositional(positionalIndexing)
+                .build();
+        boolean headerSent = false;
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] buffer = new byte[DOCUMENT_CHUNK_SIZE];
+            int read;
+            while (awaitReady(requestObserver, reply, readiness) && (read = input.read(buffer)) != -1) {
+                DocumentChunk.Builder chunk = headerSent ? DocumentChunk.newBuilder() : header.toBuilder();
+                requestObserver.onNext(chunk.setData(ByteString.copyFrom(buffer, 0, read)).build());
+                headerSent = true;
+            }
+        } catch (IOException e) {
+            requestObserver.onError(e);
+            throw e;
+        }
+        if (!headerSent && !reply.isDone()) {
+            // Empty file: the server still needs the path to register the document
+            requestObserver.onNext(header);
+        }
+        if (!reply.isDone()) {
+            requestObserver.onCompleted();
+        }
+
+        try {
+            return reply.get(DOCUMENT_STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for the server to index " + file.getName(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing " + file.getName(), e);
+        } catch (ExecutionException e) {
+            throw new IOException("Server failed to index " + file.getName() + ": " + e.getCause().getMessage(), e);
+        }
     }
 
-    return wordFrequencies;
-}
+    // Waits until the stream accepts another chunk; false once the call has already ended, e.g. the server failed it
+    private static boolean awaitReady(ClientCallStreamObserver<DocumentChunk> stream, CompletableFuture<IndexRep> reply, Object readiness) throws IOException {
+        synchronized (readiness) {
+            while (!stream.isReady() && !reply.isDone()) {
+                try {
+                    readiness.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stream.cancel("Interrupted", e);
+                    throw new IOException("Interrupted while streaming a document", e);
+                }
+            }
+        }
+        return !reply.isDone();
+    }
 
 public void searchFiles(String query) {
-    List<String> queryList = Arrays.stream(query.split("(?i)\\bAND\\b"))
-                               .map(String::trim)
-                               .filter(term -> !term.isEmpty())
-                               .toList();
+    String trimmedQuery = query.trim();
+    SearchReq.Builder request = SearchReq.newBuilder();
+    Matcher near = NEAR_PATTERN.matcher(trimmedQuery);
+    List<String> queryList;
+
+    if (trimmedQuery.length() > 1 && trimmedQuery.startsWith("\"") && trimmedQuery.endsWith("\"")) {
+        // Phrase words are tokenized like documents so their positions line up with the index
+        queryList = DocumentTokenizer.splitTerms(trimmedQuery);
+        request.setOperator(SearchReq.Operator.PHRASE);
+    } else if (near.find()) {
+        // Operands may span several words; all of them are tokenized like documents
+        queryList = Arrays.stream(NEAR_PATTERN.split(trimmedQuery))
+                          .flatMap(operand -> DocumentTokenizer.splitTerms(operand).stream())
+                          .toList();
+        // One window must hold every term, so all NEAR operators in a query have to agree on its size
+        Integer distance = null;
+        do {
+            int operatorDistance;
+            try {
+                operatorDistance = near.group(1) == null ? DEFAULT_NEAR_DISTANCE : Integer.parseInt(near.group(1));
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid NEAR distance: " + near.group(1));
+                return;
+            }
+            if (distance != null && distance != operatorDistance) {
+                System.out.println("All NEAR operators in a query must use the same distance");
+                return;
+            }
+            distance = operatorDistance;
+        } while (near.find());
+        request.setOperator(SearchReq.Operator.NEAR).setDistance(distance);
+    } else {
+        queryList = Arrays.stream(trimmedQuery.split("(?i)\\bAND\\b"))
+                          .map(String::trim)
+                          .filter(term -> !term.isEmpty())
+                          .toList();
+    }
 
-    System.out.println("Performing AND search for: " + queryList);
+    System.out.println("Performing " + request.getOperator() + " search for: " + queryList);
 
-    SearchReq request = SearchReq.newBuilder().addAllTerms(queryList).build();
-    SearchRep response = stub.computeSearch(request);
+    SearchRep response = nextSearchStub().computeSearch(request.addAllTerms(queryList).build());
 
     List<SearchRep.SearchResult> sortedResults = response.getSearchResultsList().stream()
         .sorted(Comparator.comparingLong(SearchRep.SearchResult::getFrequency).reversed()) 
@@ -185,10 +342,14 @@ public void searchFiles(String query) {
     }
 
     public void shutdown() {
+        List<ManagedChannel> channels = new ArrayList<>(replicaChannels);
         if (channel != null) {
-            channel.shutdown();
+            channels.add(channel);
+        }
+        for (ManagedChannel openChannel : channels) {
+            openChannel.shutdown();
             try {
-                channel.awaitTermination(5, TimeUnit.SECONDS);
+                openChannel.awaitTermination(5, TimeUnit.SECONDS);
             } catch (InterruptedException e) {
                 System.out.println("Error while shutting down channel: " + e.getMessage());
             }
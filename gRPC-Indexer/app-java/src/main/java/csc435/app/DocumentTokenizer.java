@@ -0,0 +1,124 @@
+package csc435.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+// The one tokenizer for documents and queries, used by both the client and the server so their terms always agree.
+// Terms are runs of [a-zA-Z0-9_-] at least MIN_TERM_LENGTH long, read straight from bytes and lower-cased as ASCII
+// only: case folding never depends on the default locale, and any non-ASCII byte (part of a multi-byte UTF-8
+// sequence, or any other encoding) ends the current term.
+public class DocumentTokenizer {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MIN_TERM_LENGTH = 4;
+
+    private final HashMap<String, Long> wordFrequencies = new HashMap<>();
+    private final HashMap<String, PositionCodec.Encoder> termPositions;
+    private List<String> orderedTerms; // only collected by splitTerms()
+    private byte[] term = new byte[64];
+    private int termLength = 0;
+    private int position = 0;
+
+    public DocumentTokenizer(boolean positional) {
+        this.termPositions = positional ? new HashMap<>() : null;
+    }
+
+    // Tokenizes the chunks in order without concatenating them; terms may span chunk boundaries
+    public static DocumentTokenizer tokenize(List<ByteString> chunks, boolean positional) {
+        DocumentTokenizer tokenizer = new DocumentTokenizer(positional);
+        for (ByteString chunk : chunks) {
+            for (ByteBuffer buffer : chunk.asReadOnlyByteBufferList()) {
+                tokenizer.accept(buffer);
+            }
+        }
+        tokenizer.finish();
+        return tokenizer;
+    }
+
+    public static DocumentTokenizer tokenize(Path file, boolean positional) throws IOException {
+        DocumentTokenizer tokenizer = new DocumentTokenizer(positional);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                tokenizer.accept(buffer);
+                buffer.clear();
+            }
+        }
+        tokenizer.finish();
+        return tokenizer;
+    }
+
+    // Terms of a query in the order they appear, tokenized exactly like documents
+    public static List<String> splitTerms(String text) {
+        DocumentTokenizer tokenizer = new DocumentTokenizer(false);
+        tokenizer.orderedTerms = new ArrayList<>();
+        tokenizer.accept(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        tokenizer.finish();
+        return tokenizer.orderedTerms;
+    }
+
+    public void accept(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b >= 'A' && b <= 'Z') {
+                append((byte) (b + ('a' - 'A')));
+            } else if ((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_' || b == '-') {
+                append(b);
+            } else {
+                endTerm();
+            }
+        }
+    }
+
+    public void finish() {
+        endTerm();
+    }
+
+    public HashMap<String, Long> getWordFrequencies() {
+        return wordFrequencies;
+    }
+
+    // Encoded position blocks per term, empty unless the tokenizer is positional
+    public Map<String, ByteString> getTermPositions() {
+        HashMap<String, ByteString> encoded = new HashMap<>();
+        if (termPositions != null) {
+            termPositions.forEach((word, positions) -> encoded.put(word, UnsafeByteOperations.unsafeWrap(positions.toByteArray())));
+        }
+        return encoded;
+    }
+
+    private void append(byte b) {
+        if (termLength == term.length) {
+            term = Arrays.copyOf(term, term.length * 2);
+        }
+        term[termLength++] = b;
+    }
+
+    private void endTerm() {
+        if (termLength >= MIN_TERM_LENGTH) {
+            String word = new String(term, 0, termLength, StandardCharsets.US_ASCII);
+            wordFrequencies.merge(word, 1L, Long::sum);
+            if (orderedTerms != null) {
+                orderedTerms.add(word);
+            }
+            if (termPositions != null) {
+                termPositions.computeIfAbsent(word, k -> new PositionCodec.Encoder()).add(position);
+            }
+            position++;
+        }
+        termLength = 0;
+    }
+}
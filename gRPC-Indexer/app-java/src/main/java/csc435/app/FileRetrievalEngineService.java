@@ -1,13 +1,21 @@
 package csc435.app;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Empty;
 
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 public class FileRetrievalEngineService extends FileRetrievalEngineGrpc.FileRetrievalEngineImplBase {
@@ -21,6 +29,7 @@ public class FileRetrievalEngineService extends FileRetrievalEngineGrpc.FileRetr
 
     @Override
     public void register(Empty request, StreamObserver<RegisterRep> responseObserver) {
+        if (rejectOnReplica(responseObserver)) return;
         int clientId = engine.registerClient(Integer.toString(request.hashCode()));
         RegisterRep response = RegisterRep.newBuilder().setClientId(clientId).build();
         System.out.println("+ Connection accepted");
@@ -30,12 +39,19 @@ public class FileRetrievalEngineService extends FileRetrievalEngineGrpc.FileRetr
 
     @Override
     public void computeIndex(IndexReq request, StreamObserver<IndexRep> responseObserver) {
+        if (rejectOnReplica(responseObserver)) return;
         int clientId = request.getClientId();
         String documentPath = request.getDocumentPath();
         HashMap<String, Long> wordFrequencies = new HashMap<>(request.getWordFrequenciesMap());
+        String invalid = validatePositions(wordFrequencies, request.getTermPositionsMap());
+        if (invalid != null) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Invalid term positions for " + documentPath + ": " + invalid)
+                    .asRuntimeException());
+            return;
+        }
 
-        long documentNumber = store.putDocument(String.valueOf(clientId), documentPath);
-        store.updateIndex(clientId,documentNumber, wordFrequencies);
+        store.indexDocument(clientId, documentPath, wordFrequencies, request.getTermPositionsMap());
 
         IndexRep response = IndexRep.newBuilder()
                 .setMessage("Indexing successful for document: " + documentPath + " By client " + clientId)
@@ -46,16 +62,163 @@ public class FileRetrievalEngineService extends FileRetrievalEngineGrpc.FileRetr
         responseObserver.onCompleted();
     }
 
-@Override
-public void computeSearch(SearchReq request, StreamObserver<SearchRep> responseObserver) {
-    List<String> terms = request.getTermsList();
+    // Position blocks are decoded on every PHRASE and NEAR search, so a malformed one must never reach the index.
+    // Returns what is wrong with the first bad block, or null if all are valid.
+    private static String validatePositions(Map<String, Long> wordFrequencies, Map<String, ByteString> termPositions) {
+        for (Map.Entry<String, ByteString> entry : termPositions.entrySet()) {
+            String term = entry.getKey();
+            Long frequency = wordFrequencies.get(term);
+            if (frequency == null) {
+                return "term '" + term + "' has positions but no frequency";
+            }
+            int[] positions;
+            try {
+                positions = PositionCodec.decode(entry.getValue().toByteArray());
+            } catch (IllegalArgumentException e) {
+                return "term '" + term + "': " + e.getMessage();
+            }
+            if (positions.length != frequency) {
+                return "term '" + term + "' has " + positions.length + " positions but frequency " + frequency;
+            }
+            for (int i = 1; i < positions.length; i++) {
+                if (positions[i] <= positions[i - 1]) {
+                    return "positions of term '" + term + "' are not strictly ascending";
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public StreamObserver<DocumentChunk> computeIndexStream(StreamObserver<IndexRep> responseObserver) {
+        boolean rejected = rejectOnReplica(responseObserver);
+        ServerCallStreamObserver<IndexRep> call = (ServerCallStreamObserver<IndexRep>) responseObserver;
+        if (!rejected) {
+            // One chunk at a time: the next is only requested once the previous one is tokenized, so a stream
+            // holds at most one chunk no matter how large the document is or how busy the tokenizer pool is
+            call.disableAutoRequest();
+            call.request(1);
+        }
+
+        return new StreamObserver<DocumentChunk>() {
+            // Chunks are tokenized as they arrive; each step runs on the tokenizer pool after the previous one,
+            // so the per-stream tokenizer is only ever used by one thread at a time
+            private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+            private final AtomicBoolean failed = new AtomicBoolean();
+            private DocumentTokenizer tokenizer;
+            private int clientId;
+            private String documentPath;
+            private long receivedBytes = 0;
+
+            @Override
+            public void onNext(DocumentChunk chunk) {
+                if (rejected) return;
+                if (documentPath == null) {
+                    clientId = chunk.getClientId();
+                    documentPath = chunk.getDocumentPath();
+                    tokenizer = new DocumentTokenizer(chunk.getPositional());
+                }
+                DocumentTokenizer target = tokenizer;
+                ByteString data = chunk.getData();
+                receivedBytes += data.size();
+                then(() -> {
+                    for (ByteBuffer buffer : data.asReadOnlyByteBufferList()) {
+                        target.accept(buffer);
+                    }
+                    call.request(1);
+                });
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                System.err.println("Document stream aborted: " + t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                if (rejected) return;
+                if (documentPath == null) {
+                    responseObserver.onError(Status.INVALID_ARGUMENT
+                            .withDescription("Document stream did not contain any chunks")
+                            .asRuntimeException());
+                    return;
+                }
+
+                DocumentTokenizer done = tokenizer;
+                int client = clientId;
+                String path = documentPath;
+                long bytes = receivedBytes;
+                then(() -> {
+                    done.finish();
+                    store.indexDocument(client, path, done.getWordFrequencies(), done.getTermPositions());
+
+                    IndexRep response = IndexRep.newBuilder()
+                            .setMessage("Indexing successful for document: " + path + " By client " + client)
+                            .setIndexedBytes(bytes)
+                            .build();
+                    responseObserver.onNext(response);
+                    responseObserver.onCompleted();
+                });
+            }
+
+            // Queues a step behind the previous ones; the first failure ends the call and skips the rest
+            private void then(Runnable step) {
+                pending = pending.thenRunAsync(step, task -> {
+                    try {
+                        engine.submitTokenization(task);
+                    } catch (RejectedExecutionException e) {
+                        fail(e);
+                    }
+                });
+                pending.whenComplete((ignored, failure) -> {
+                    if (failure != null) {
+                        fail(failure instanceof CompletionException ? failure.getCause() : failure);
+                    }
+                });
+            }
+
+            private void fail(Throwable failure) {
+                if (!failed.compareAndSet(false, true)) return;
+                if (failure instanceof RejectedExecutionException) {
+                    responseObserver.onError(Status.UNAVAILABLE
+                            .withDescription("Server is shutting down")
+                            .asRuntimeException());
+                    return;
+                }
+                System.err.println("Failed to index " + documentPath + ": " + failure);
+                responseObserver.onError(Status.INTERNAL
+                        .withDescription("Failed to index document: " + documentPath)
+                        .withCause(failure)
+                        .asRuntimeException());
+            }
+        };
+    }
+
+    @Override
+    public void computeSearch(SearchReq request, StreamObserver<SearchRep> responseObserver) {
+        if (request.getOperator() == SearchReq.Operator.NEAR && request.getDistance() < 0) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("NEAR distance must not be negative: " + request.getDistance())
+                    .asRuntimeException());
+            return;
+        }
+        // Pin one view so every term is read from the same refresh, without blocking writers or refreshes
+        IndexView view = store.currentView();
+        SearchRep response = request.getOperator() == SearchReq.Operator.AND
+                ? computeAndSearch(view, request.getTermsList())
+                : computePositionalSearch(view, request);
+        responseObserver.onNext(response);
+        responseObserver.onCompleted();
+    }
+
+private SearchRep computeAndSearch(IndexView view, List<String> terms) {
     SearchRep.Builder responseBuilder = SearchRep.newBuilder();
 
     // Map to store documents containing all terms and their accumulated frequencies
     Map<String, SearchRep.SearchResult.Builder> documentFrequencyMap = new HashMap<>();
 
     for (String term : terms) {
-        CopyOnWriteArrayList<DocFreqPair> results = store.lookupIndex(term);
+        List<DocFreqPair> results = view.lookup(term);
 
         for (DocFreqPair result : results) {
             String documentPath = store.getDocument(result.documentNumber);
@@ -77,7 +240,7 @@ public void computeSearch(SearchReq request, StreamObserver<SearchRep> responseO
 
     // Filter: Keep only documents containing **all** terms
     List<SearchRep.SearchResult> finalResults = documentFrequencyMap.values().stream()
-        .filter(entry -> terms.stream().allMatch(term -> store.lookupIndex(term).stream()
+        .filter(entry -> terms.stream().allMatch(term -> view.lookup(term).stream()
             .anyMatch(df -> store.getDocument(df.documentNumber).equals(entry.getDocumentPath()))
         ))
         .sorted(Comparator.comparingLong(SearchRep.SearchResult.Builder::getFrequency).reversed()) // Sort by frequency
@@ -89,13 +252,78 @@ public void computeSearch(SearchReq request, StreamObserver<SearchRep> responseO
     responseBuilder.setTimeTaken(0.01);
     responseBuilder.setTotalResults(finalResults.size());
 
-    responseObserver.onNext(responseBuilder.build());
-    responseObserver.onCompleted();
+    return responseBuilder.build();
 }
 
 
+    // PHRASE and NEAR: intersect at document level first, then merge position lists only for the survivors
+    private SearchRep computePositionalSearch(IndexView view, SearchReq request) {
+        long startTime = System.nanoTime();
+        List<String> terms = request.getTermsList();
+        List<List<DocFreqPair>> postings = terms.stream().map(view::lookup).toList();
+
+        Map<Long, DocFreqPair[]> candidates = new HashMap<>();
+        if (!terms.isEmpty()) {
+            // Drive the intersection from the rarest term to keep the candidate set small
+            int rarest = 0;
+            for (int i = 1; i < postings.size(); i++) {
+                if (postings.get(i).size() < postings.get(rarest).size()) rarest = i;
+            }
+            for (DocFreqPair posting : postings.get(rarest)) {
+                if (posting.positions == null) continue;
+                candidates.computeIfAbsent(posting.documentNumber, k -> new DocFreqPair[terms.size()])[rarest] = posting;
+            }
+            for (int i = 0; i < postings.size() && !candidates.isEmpty(); i++) {
+                if (i == rarest) continue;
+                for (DocFreqPair posting : postings.get(i)) {
+                    DocFreqPair[] matched = candidates.get(posting.documentNumber);
+                    if (matched != null && posting.positions != null) {
+                        matched[i] = posting;
+                    }
+                }
+                int term = i;
+                candidates.values().removeIf(matched -> matched[term] == null);
+            }
+        }
+
+        List<SearchRep.SearchResult> matches = new ArrayList<>();
+        for (DocFreqPair[] matched : candidates.values()) {
+            int[][] positions = new int[matched.length][];
+            long frequency = 0;
+            for (int i = 0; i < matched.length; i++) {
+                positions[i] = PositionCodec.decode(matched[i].positions);
+                frequency += matched[i].wordFrequency;
+            }
+
+            if (request.getOperator() == SearchReq.Operator.PHRASE) {
+                frequency = PhraseMatcher.countPhrases(positions);
+                if (frequency == 0) continue;
+            } else if (!PhraseMatcher.withinDistance(positions, request.getDistance())) {
+                continue;
+            }
+
+            matches.add(SearchRep.SearchResult.newBuilder()
+                    .setClientId(matched[0].clientId)
+                    .setDocumentPath(store.getDocument(matched[0].documentNumber))
+                    .setFrequency(frequency)
+                    .build());
+        }
+
+        List<SearchRep.SearchResult> topResults = matches.stream()
+                .sorted(Comparator.comparingLong(SearchRep.SearchResult::getFrequency).reversed())
+                .limit(10)
+                .toList();
+
+        return SearchRep.newBuilder()
+                .addAllSearchResults(topResults)
+                .setTimeTaken((System.nanoTime() - startTime) / 1e9)
+                .setTotalResults(matches.size())
+                .build();
+    }
+
     @Override
     public void deregister(DeregisterReq request, StreamObserver<Empty> responseObserver) {
+        if (rejectOnReplica(responseObserver)) return;
         engine.deregisterClient(request.getClientId());
         responseObserver.onNext(Empty.newBuilder().build());
         responseObserver.onCompleted();
@@ -112,4 +340,59 @@ public void computeSearch(SearchReq request, StreamObserver<SearchRep> responseO
         responseObserver.onNext(response);
         responseObserver.onCompleted();
     }
+
+    @Override
+    public void refresh(Empty request, StreamObserver<Empty> responseObserver) {
+        if (rejectOnReplica(responseObserver)) return;
+        store.refresh();
+        responseObserver.onNext(Empty.newBuilder().build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getSnapshot(Empty request, StreamObserver<IndexSnapshotChunk> responseObserver) {
+        if (rejectOnReplica(responseObserver)) return;
+        ServerCallStreamObserver<IndexSnapshotChunk> observer = (ServerCallStreamObserver<IndexSnapshotChunk>) responseObserver;
+        SnapshotEncoder chunks = store.snapshot();
+
+        // Chunks are encoded only when the replica's stream can take them, never buffered up front.
+        // Closing the encoder on either end of the transfer lets the replication log stop retaining for it.
+        observer.setOnCancelHandler(() -> {
+            chunks.close();
+            System.out.println("Replica cancelled the snapshot transfer.");
+        });
+        observer.setOnReadyHandler(new Runnable() {
+            private boolean completed = false;
+
+            @Override
+            public synchronized void run() {
+                while (!completed && observer.isReady()) {
+                    if (!chunks.hasNext()) {
+                        completed = true;
+                        chunks.close();
+                        observer.onCompleted();
+                        return;
+                    }
+                    observer.onNext(chunks.next());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void streamMutations(MutationStreamReq request, StreamObserver<IndexMutation> responseObserver) {
+        if (rejectOnReplica(responseObserver)) return;
+        // Left open: the replication log pushes every new mutation until the replica cancels or we shut down
+        store.getReplicationLog().subscribe(request.getFromSequence(),
+                (ServerCallStreamObserver<IndexMutation>) responseObserver);
+    }
+
+    // Replicas serve ComputeSearch only; writes and replication go to the primary
+    private boolean rejectOnReplica(StreamObserver<?> responseObserver) {
+        if (!engine.isReplica()) return false;
+        responseObserver.onError(Status.FAILED_PRECONDITION
+                .withDescription("This server is a read replica and only serves ComputeSearch")
+                .asRuntimeException());
+        return true;
+    }
 }
\ No newline at end of file
@@ -4,7 +4,7 @@ public class FileRetrievalServer {
     public static void main(String[] args) {
         // Use a non-privileged port from args[0]
         if (args.length < 1) {
-            System.out.println("Usage: java FileRetrievalServer <port>");
+            System.out.println("Usage: java FileRetrievalServer <port> [<primary_ip> <primary_port>]");
             return;
         }
         int serverPort = Integer.parseInt(args[0]);
@@ -13,8 +13,12 @@ public class FileRetrievalServer {
         ServerProcessingEngine engine = new ServerProcessingEngine(store);
         ServerAppInterface appInterface = new ServerAppInterface(engine);
 
-        // Start gRPC server workers
-        engine.initialize(serverPort);
+        // Start gRPC server workers, as a search replica when a primary is given
+        if (args.length >= 3) {
+            engine.initializeReplica(serverPort, args[1], Integer.parseInt(args[2]));
+        } else {
+            engine.initialize(serverPort);
+        }
 
         // Read user commands
         appInterface.readCommands();
@@ -1,31 +1,197 @@
 package csc435.app;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.protobuf.ByteString;
 
 class DocFreqPair {
     public int clientId;
     public long documentNumber;
     public long wordFrequency;
+    public byte[] positions; // PositionCodec block, null when indexed without positions
 
     public DocFreqPair(int clinetId, long documentNumber, long wordFrequency) {
-        this.clientId = clinetId;
+        this(clinetId, documentNumber, wordFrequency, null);
+    }
+
+    public DocFreqPair(int clientId, long documentNumber, long wordFrequency, byte[] positions) {
+        this.clientId = clientId;
         this.documentNumber = documentNumber;
         this.wordFrequency = wordFrequency;
+        this.positions = positions;
+    }
+}
+
+// Postings written since the last refresh, grouped by term. Each writer thread maps to one buffer,
+// so writers add whole documents locally instead of contending on the posting lists of hot terms.
+// Callers hold the buffer's lock.
+class PostingBuffer {
+    final ReentrantLock lock = new ReentrantLock();
+    private HashMap<String, ArrayList<DocFreqPair>> postings = new HashMap<>();
+
+    void add(int clientId, long documentNumber, HashMap<String, Long> wordFrequencies, Map<String, ByteString> termPositions) {
+        wordFrequencies.forEach((term, frequency) -> {
+            ByteString positions = termPositions.get(term);
+            postings.computeIfAbsent(term, k -> new ArrayList<>())
+                    .add(new DocFreqPair(clientId, documentNumber, frequency, positions == null ? null : positions.toByteArray()));
+        });
+    }
+
+    HashMap<String, ArrayList<DocFreqPair>> drain() {
+        HashMap<String, ArrayList<DocFreqPair>> drained = postings;
+        postings = new HashMap<>();
+        return drained;
+    }
+}
+
+// Postings published by one refresh, or by merging the segments of several, grouped by term. Never modified once built.
+class IndexSegment {
+    final HashMap<String, DocFreqPair[]> terms;
+    final long postingCount;
+
+    private IndexSegment(HashMap<String, DocFreqPair[]> terms, long postingCount) {
+        this.terms = terms;
+        this.postingCount = postingCount;
+    }
+
+    static IndexSegment of(HashMap<String, ArrayList<DocFreqPair>> postings) {
+        HashMap<String, DocFreqPair[]> terms = new HashMap<>();
+        long postingCount = 0;
+        for (Map.Entry<String, ArrayList<DocFreqPair>> term : postings.entrySet()) {
+            terms.put(term.getKey(), term.getValue().toArray(new DocFreqPair[0]));
+            postingCount += term.getValue().size();
+        }
+        return new IndexSegment(terms, postingCount);
+    }
+
+    // Older postings come first in the merged lists
+    static IndexSegment merge(IndexSegment older, IndexSegment newer) {
+        HashMap<String, DocFreqPair[]> terms = new HashMap<>(older.terms);
+        newer.terms.forEach((term, added) -> terms.merge(term, added, (existing, more) -> {
+            DocFreqPair[] combined = Arrays.copyOf(existing, existing.length + more.length);
+            System.arraycopy(more, 0, combined, existing.length, more.length);
+            return combined;
+        }));
+        return new IndexSegment(terms, older.postingCount + newer.postingCount);
+    }
+}
+
+// Read-only concatenation of one term's posting arrays across segments
+class PostingList extends AbstractList<DocFreqPair> {
+    private final List<DocFreqPair[]> parts;
+    private final int size;
+
+    PostingList(List<DocFreqPair[]> parts) {
+        this.parts = parts;
+        this.size = parts.stream().mapToInt(part -> part.length).sum();
+    }
+
+    @Override
+    public DocFreqPair get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        for (DocFreqPair[] part : parts) {
+            if (index < part.length) return part[index];
+            index -= part.length;
+        }
+        throw new IndexOutOfBoundsException(index);
+    }
+
+    @Override
+    public Iterator<DocFreqPair> iterator() {
+        return parts.stream().flatMap(Arrays::stream).iterator();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
+
+// The searchable index as of one refresh: an immutable list of segments, oldest first. Searches and
+// snapshots read it without locking while refreshes build the next view.
+class IndexView {
+    static final IndexView EMPTY = new IndexView(List.of());
+
+    private final List<IndexSegment> segments;
+
+    private IndexView(List<IndexSegment> segments) {
+        this.segments = segments;
+    }
+
+    public List<DocFreqPair> lookup(String term) {
+        List<DocFreqPair[]> parts = new ArrayList<>(segments.size());
+        for (IndexSegment segment : segments) {
+            DocFreqPair[] postings = segment.terms.get(term);
+            if (postings != null) parts.add(postings);
+        }
+        if (parts.isEmpty()) return List.of();
+        if (parts.size() == 1) return Collections.unmodifiableList(Arrays.asList(parts.get(0)));
+        return new PostingList(parts);
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    // Every (term, postings) group in the view; a term appears once per segment that holds it
+    Iterator<Map.Entry<String, DocFreqPair[]>> postings() {
+        return segments.stream().flatMap(segment -> segment.terms.entrySet().stream()).iterator();
+    }
+
+    // Adds a refresh as a new segment without touching existing ones. Trailing segments are merged while the
+    // newer one holds at least half as many postings as the one before it, which keeps segment sizes geometric:
+    // a view has O(log n) segments and each posting is copied O(log n) times over the life of the index.
+    IndexView append(IndexSegment added) {
+        ArrayList<IndexSegment> next = new ArrayList<>(segments);
+        next.add(added);
+        while (next.size() >= 2) {
+            IndexSegment newer = next.get(next.size() - 1);
+            IndexSegment older = next.get(next.size() - 2);
+            if (newer.postingCount * 2 < older.postingCount) break;
+            next.remove(next.size() - 1);
+            next.set(next.size() - 1, IndexSegment.merge(older, newer));
+        }
+        return new IndexView(List.copyOf(next));
     }
 }
 
 public class IndexStore {
-    private final HashMap<String, Long> documentMap = new HashMap<>();
-    private final HashMap<Long, String> reverseDocumentMap = new HashMap<>();
-    private final HashMap<Long, String> documentClientMap = new HashMap<>();
-    private final ConcurrentHashMap<String, CopyOnWriteArrayList<DocFreqPair>> termInvertedIndex = new ConcurrentHashMap<>();
-    private long documentCounter = 1;
+    private static final int WRITE_BUFFER_STRIPES = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final ConcurrentHashMap<String, Long> documentMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, String> reverseDocumentMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, String> documentClientMap = new ConcurrentHashMap<>();
+    private final AtomicLong documentCounter = new AtomicLong(1);
+    private final ReplicationLog replicationLog;
+    private final PostingBuffer[] writeBuffers = new PostingBuffer[WRITE_BUFFER_STRIPES];
+    // Serializes refreshes, snapshots and snapshot loads; never taken by writers or searches
+    private final Object refreshMutex = new Object();
+    private volatile IndexView view = IndexView.EMPTY;
+
+    public IndexStore() {
+        this(new ReplicationLog());
+    }
+
+    public IndexStore(ReplicationLog replicationLog) {
+        this.replicationLog = replicationLog;
+        for (int i = 0; i < writeBuffers.length; i++) {
+            writeBuffers[i] = new PostingBuffer();
+        }
+    }
 
-    public synchronized long putDocument(String clientId, String documentPath) {
+    public long putDocument(String clientId, String documentPath) {
         return documentMap.computeIfAbsent(documentPath, k -> {
-            long docId = documentCounter++;
+            long docId = documentCounter.getAndIncrement();
             reverseDocumentMap.put(docId, documentPath);
             documentClientMap.put(docId, clientId);
             return docId;
@@ -33,21 +199,173 @@ public class IndexStore {
     }
 
     public String getDocument(long documentNumber) {
-        return reverseDocumentMap.getOrDefault(documentNumber, null);
+        return reverseDocumentMap.get(documentNumber);
     }
 
     public String getClientId(long documentNumber) {
-        return documentClientMap.getOrDefault(documentNumber, null);
+        return documentClientMap.get(documentNumber);
     }
 
-    public void updateIndex(int clientId, long documentNumber, HashMap<String, Long> wordFrequencies) {
-        wordFrequencies.forEach((term, frequency) -> {
-            termInvertedIndex.computeIfAbsent(term, k -> new CopyOnWriteArrayList<>())
-                    .add(new DocFreqPair(clientId,documentNumber, frequency));
-        });
+    // Postings are buffered and only become searchable after the next refresh(). Private: writes go through
+    // indexDocument() on the primary, which also publishes them to replicas, or applyMutation() on a replica.
+    private void updateIndex(int clientId, long documentNumber, HashMap<String, Long> wordFrequencies, Map<String, ByteString> termPositions) {
+        PostingBuffer buffer = writeBuffer();
+        buffer.lock.lock();
+        try {
+            buffer.add(clientId, documentNumber, wordFrequencies, termPositions);
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    private PostingBuffer writeBuffer() {
+        return writeBuffers[(int) (Thread.currentThread().threadId() % writeBuffers.length)];
+    }
+
+    // Publishes everything buffered so far as one new segment, instead of one posting list append per document
+    public void refresh() {
+        synchronized (refreshMutex) {
+            List<HashMap<String, ArrayList<DocFreqPair>>> drained = new ArrayList<>();
+            for (PostingBuffer buffer : writeBuffers) {
+                buffer.lock.lock();
+                try {
+                    drained.add(buffer.drain());
+                } finally {
+                    buffer.lock.unlock();
+                }
+            }
+            publish(drained);
+        }
+    }
+
+    private void publish(List<HashMap<String, ArrayList<DocFreqPair>>> drained) {
+        HashMap<String, ArrayList<DocFreqPair>> merged = new HashMap<>();
+        for (HashMap<String, ArrayList<DocFreqPair>> postings : drained) {
+            postings.forEach((term, added) -> merged.merge(term, added, (existing, more) -> {
+                existing.addAll(more);
+                return existing;
+            }));
+        }
+        if (merged.isEmpty()) return;
+
+        view = view.append(IndexSegment.of(merged));
+    }
+
+    // The view published by the last refresh; hold on to it to run a whole search against one refresh
+    public IndexView currentView() {
+        return view;
+    }
+
+    public List<DocFreqPair> lookupIndex(String term) {
+        return view.lookup(term);
+    }
+
+    public ReplicationLog getReplicationLog() {
+        return replicationLog;
+    }
+
+    // Indexes a document and publishes the change to the replication feed. Per document this touches one
+    // ConcurrentHashMap bin, the caller's write buffer lock and the replication sequence counter; the
+    // replication log's monitor is only taken while replicas are bootstrapping or subscribed.
+    public long indexDocument(int clientId, String documentPath, HashMap<String, Long> wordFrequencies, Map<String, ByteString> termPositions) {
+        long documentNumber = putDocument(String.valueOf(clientId), documentPath);
+        PostingBuffer buffer = writeBuffer();
+        // Buffering and taking the replication sequence happen under the same lock, which snapshot() uses as a fence
+        buffer.lock.lock();
+        try {
+            buffer.add(clientId, documentNumber, wordFrequencies, termPositions);
+            // Only built when a replica may read it
+            replicationLog.append(() -> IndexMutation.newBuilder()
+                    .setClientId(clientId)
+                    .setDocumentNumber(documentNumber)
+                    .setDocumentPath(documentPath)
+                    .putAllWordFrequencies(wordFrequencies)
+                    .putAllTermPositions(termPositions));
+        } finally {
+            buffer.lock.unlock();
+        }
+        return documentNumber;
     }
 
-    public CopyOnWriteArrayList<DocFreqPair> lookupIndex(String term) {
-        return termInvertedIndex.getOrDefault(term, new CopyOnWriteArrayList<>());
+    // Replays a mutation received from the primary, keeping the primary's document numbers
+    public void applyMutation(IndexMutation mutation) {
+        restoreDocument(mutation.getDocumentNumber(), mutation.getClientId(), mutation.getDocumentPath());
+        updateIndex(mutation.getClientId(), mutation.getDocumentNumber(), new HashMap<>(mutation.getWordFrequenciesMap()),
+                mutation.getTermPositionsMap());
+    }
+
+    private void restoreDocument(long documentNumber, int clientId, String documentPath) {
+        reverseDocumentMap.put(documentNumber, documentPath);
+        documentClientMap.put(documentNumber, String.valueOf(clientId));
+        documentMap.put(documentPath, documentNumber);
+        documentCounter.accumulateAndGet(documentNumber + 1, Math::max);
+    }
+
+    // Fences ingestion just long enough to pin a consistent view; chunks are then encoded lazily by the caller's stream.
+    // The replication log retains mutations from here on until the caller closes the encoder.
+    public SnapshotEncoder snapshot() {
+        long sequence;
+        IndexView captured;
+
+        synchronized (refreshMutex) {
+            // Holding every write buffer lock means no document sits between buffering and taking its sequence,
+            // so the drained postings are exactly the mutations up to `sequence`
+            List<HashMap<String, ArrayList<DocFreqPair>>> drained = new ArrayList<>();
+            for (PostingBuffer buffer : writeBuffers) {
+                buffer.lock.lock();
+            }
+            try {
+                for (PostingBuffer buffer : writeBuffers) {
+                    drained.add(buffer.drain());
+                }
+                sequence = replicationLog.retain();
+            } finally {
+                for (PostingBuffer buffer : writeBuffers) {
+                    buffer.lock.unlock();
+                }
+            }
+            publish(drained);
+            captured = view;
+        }
+
+        // Documents are read from the live table: entries added after the fence are restored again by their mutation
+        return new SnapshotEncoder(sequence, reverseDocumentMap, documentClientMap, captured, replicationLog::release);
+    }
+
+    // Replaces the whole index with a snapshot streamed from the primary and returns its sequence.
+    // The stream is consumed without holding any lock; searches keep using the previous view until the
+    // last chunk has arrived and the new one is swapped in.
+    public long loadSnapshot(Iterator<IndexSnapshotChunk> chunks) {
+        HashMap<String, ArrayList<DocFreqPair>> terms = new HashMap<>();
+        long sequence = 0;
+        while (chunks.hasNext()) {
+            IndexSnapshotChunk chunk = chunks.next();
+            sequence = chunk.getSequence();
+            // Document numbers are stable on the primary, so entries can be restored in place ahead of their postings
+            for (IndexSnapshotChunk.Document document : chunk.getDocumentsList()) {
+                restoreDocument(document.getDocumentNumber(), document.getClientId(), document.getDocumentPath());
+            }
+            for (IndexSnapshotChunk.TermPostings term : chunk.getTermsList()) {
+                ArrayList<DocFreqPair> postings = terms.computeIfAbsent(term.getTerm(), k -> new ArrayList<>());
+                for (IndexSnapshotChunk.Posting posting : term.getPostingsList()) {
+                    byte[] positions = posting.getPositions().isEmpty() ? null : posting.getPositions().toByteArray();
+                    postings.add(new DocFreqPair(posting.getClientId(), posting.getDocumentNumber(), posting.getWordFrequency(), positions));
+                }
+            }
+        }
+        IndexView loaded = IndexView.EMPTY.append(IndexSegment.of(terms));
+
+        synchronized (refreshMutex) {
+            for (PostingBuffer buffer : writeBuffers) {
+                buffer.lock.lock();
+                try {
+                    buffer.drain(); // discard postings buffered before this snapshot
+                } finally {
+                    buffer.lock.unlock();
+                }
+            }
+            view = loaded;
+        }
+        return sequence;
     }
 }
\ No newline at end of file
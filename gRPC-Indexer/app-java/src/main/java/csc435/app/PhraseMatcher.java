@@ -0,0 +1,49 @@
+package csc435.app;
+
+// Position-list merges for PHRASE and NEAR queries.
+// Each input row holds one query term's ascending positions within a single document.
+public class PhraseMatcher {
+
+    // Number of places where the terms appear consecutively, in query order
+    public static long countPhrases(int[][] positions) {
+        int[] candidates = positions[0].clone();
+        int count = candidates.length;
+
+        for (int i = 1; i < positions.length && count > 0; i++) {
+            int[] next = positions[i];
+            int kept = 0;
+            int j = 0;
+            for (int c = 0; c < count; c++) {
+                int target = candidates[c] + i;
+                while (j < next.length && next[j] < target) j++;
+                if (j == next.length) break;
+                if (next[j] == target) {
+                    candidates[kept++] = candidates[c];
+                }
+            }
+            count = kept;
+        }
+        return count;
+    }
+
+    // True when a window spanning at most `distance` positions contains every term, in any order
+    public static boolean withinDistance(int[][] positions, int distance) {
+        int[] cursors = new int[positions.length];
+        while (true) {
+            int minTerm = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < positions.length; i++) {
+                if (cursors[i] == positions[i].length) return false;
+                int position = positions[i][cursors[i]];
+                if (position < min) {
+                    min = position;
+                    minTerm = i;
+                }
+                max = Math.max(max, position);
+            }
+            if (max - min <= distance) return true;
+            cursors[minTerm]++;
+        }
+    }
+}
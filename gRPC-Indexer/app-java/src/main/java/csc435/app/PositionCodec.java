@@ -0,0 +1,68 @@
+package csc435.app;
+
+import java.util.Arrays;
+
+// Term positions are stored as delta-encoded varints: gaps between ascending positions are small,
+// so most positions take a single byte.
+public class PositionCodec {
+
+    public static class Encoder {
+        private byte[] bytes = new byte[4];
+        private int length = 0;
+        private int lastPosition = 0;
+
+        // Positions must be added in ascending order
+        public void add(int position) {
+            int delta = position - lastPosition;
+            lastPosition = position;
+            while ((delta & ~0x7F) != 0) {
+                put((byte) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+            put((byte) delta);
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void put(byte b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = b;
+        }
+    }
+
+    // Throws IllegalArgumentException for blocks no Encoder could have produced: a truncated or overlong
+    // varint, or positions past Integer.MAX_VALUE
+    public static int[] decode(byte[] encoded) {
+        // Every position takes at least one byte, so this is an upper bound on the count
+        int[] positions = new int[encoded.length];
+        int count = 0;
+        long position = 0;
+        int i = 0;
+        while (i < encoded.length) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (i == encoded.length) {
+                    throw new IllegalArgumentException("Position block ends inside a varint");
+                }
+                if (shift > 28) {
+                    throw new IllegalArgumentException("Position varint is longer than five bytes");
+                }
+                b = encoded[i++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            position += delta;
+            if (position > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Position " + position + " is out of range");
+            }
+            positions[count++] = (int) position;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+}
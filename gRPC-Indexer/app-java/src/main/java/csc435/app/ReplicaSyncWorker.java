@@ -0,0 +1,86 @@
+package csc435.app;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.Empty;
+
+import csc435.app.FileRetrievalEngineGrpc.FileRetrievalEngineBlockingStub;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+// Keeps a replica's IndexStore in sync: bootstrap from a primary snapshot, then tail its mutation feed
+public class ReplicaSyncWorker implements Runnable {
+    private static final long RETRY_DELAY_MS = 1000;
+    // Upper bound for the whole bootstrap transfer, so a stalled primary cannot hang the replica
+    private static final long SNAPSHOT_DEADLINE_MS = 5 * 60 * 1000;
+
+    private final IndexStore store;
+    private final String primary;
+    private final ManagedChannel channel;
+    private volatile boolean running = true;
+    private long sequence = -1; // -1 until a snapshot has been loaded
+
+    public ReplicaSyncWorker(IndexStore store, String primaryIP, int primaryPort) {
+        this(store, ManagedChannelBuilder.forAddress(primaryIP, primaryPort).usePlaintext().build(), primaryIP + ":" + primaryPort);
+    }
+
+    ReplicaSyncWorker(IndexStore store, ManagedChannel channel, String primary) {
+        this.store = store;
+        this.channel = channel;
+        this.primary = primary;
+    }
+
+    @Override
+    public void run() {
+        FileRetrievalEngineBlockingStub stub = FileRetrievalEngineGrpc.newBlockingStub(channel);
+
+        while (running) {
+            try {
+                if (sequence < 0) {
+                    sequence = store.loadSnapshot(stub.withDeadlineAfter(SNAPSHOT_DEADLINE_MS, TimeUnit.MILLISECONDS)
+                            .getSnapshot(Empty.newBuilder().build()));
+                    System.out.println("Replica bootstrapped from " + primary + " at sequence " + sequence);
+                }
+
+                Iterator<IndexMutation> feed = stub.streamMutations(
+                        MutationStreamReq.newBuilder().setFromSequence(sequence).build());
+                while (feed.hasNext()) {
+                    IndexMutation mutation = feed.next();
+                    store.applyMutation(mutation);
+                    sequence = mutation.getSequence();
+                }
+                System.out.println("Primary closed the mutation feed.");
+            } catch (StatusRuntimeException e) {
+                if (!running) break;
+                if (e.getStatus().getCode() == Status.Code.OUT_OF_RANGE) {
+                    System.out.println("Replica fell behind the primary, re-bootstrapping from a new snapshot...");
+                    sequence = -1;
+                    continue;
+                }
+                System.err.println("Replication from " + primary + " failed: " + e.getStatus());
+            }
+
+            try {
+                Thread.sleep(RETRY_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        channel.shutdownNow();
+    }
+
+    public void shutdown() {
+        running = false;
+        channel.shutdownNow();
+        try {
+            channel.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            System.err.println("Replica shutdown interrupted!");
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package csc435.app;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+
+// Ordered feed of index mutations that replicas tail after bootstrapping from a snapshot.
+// Mutations are only built and retained while a replica may need them: while a snapshot is being streamed,
+// while any replica is subscribed, and for a grace period after either ends. Otherwise append() only takes
+// a sequence number. The backlog is bounded both by mutation count and by serialized bytes, since one
+// mutation carries a whole document's term maps.
+// Each replica reads the backlog through its own cursor, paced by its stream's readiness; one that falls
+// behind the oldest retained mutation is told to re-bootstrap.
+public class ReplicationLog {
+    private static final int DEFAULT_BACKLOG_MUTATIONS = 100_000;
+    private static final long DEFAULT_BACKLOG_BYTES = 64L * 1024 * 1024;
+    // Covers the gap between a replica's snapshot and its subscription, and short reconnects
+    private static final long DEFAULT_RETAIN_GRACE_MS = 60_000;
+
+    private class Subscription {
+        final ServerCallStreamObserver<IndexMutation> observer;
+        long cursor; // last sequence sent
+        boolean closed = false;
+
+        Subscription(ServerCallStreamObserver<IndexMutation> observer, long cursor) {
+            this.observer = observer;
+            this.cursor = cursor;
+        }
+    }
+
+    private final IndexMutation[] backlog;
+    private final int[] backlogSizes;
+    private final long maxBacklogBytes;
+    private final long retainGraceMs;
+    private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicLong lastSequence = new AtomicLong();
+    private volatile boolean retaining = false;
+    // Guarded by this
+    private long retainedFrom = 1; // oldest sequence still in the backlog
+    private long retainedBytes = 0;
+    private int activeSnapshots = 0;
+    private long retainUntil = 0;
+    // Appends only wake this thread; serialization and sends happen here or on the stream's onReady callback
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replication-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    public ReplicationLog() {
+        this(DEFAULT_BACKLOG_MUTATIONS, DEFAULT_BACKLOG_BYTES, DEFAULT_RETAIN_GRACE_MS);
+    }
+
+    public ReplicationLog(int maxBacklogMutations, long maxBacklogBytes, long retainGraceMs) {
+        this.backlog = new IndexMutation[maxBacklogMutations];
+        this.backlogSizes = new int[maxBacklogMutations];
+        this.maxBacklogBytes = maxBacklogBytes;
+        this.retainGraceMs = retainGraceMs;
+    }
+
+    // Callers must not run concurrently with retain(); IndexStore fences both with its write buffer locks
+    public long append(Supplier<IndexMutation.Builder> mutation) {
+        if (!retaining) {
+            return lastSequence.incrementAndGet();
+        }
+
+        // Sequence numbers are added when the mutation is sent, so it can be built and sized outside the monitor
+        IndexMutation entry = mutation.get().build();
+        int size = entry.getSerializedSize();
+        long sequence;
+        synchronized (this) {
+            sequence = lastSequence.incrementAndGet();
+            evictBefore(sequence - backlog.length + 1);
+            int slot = (int) (sequence % backlog.length);
+            backlog[slot] = entry;
+            backlogSizes[slot] = size;
+            retainedBytes += size;
+            while (retainedBytes > maxBacklogBytes && retainedFrom < sequence) {
+                evictBefore(retainedFrom + 1);
+            }
+            if (subscribers.isEmpty() && activeSnapshots == 0 && System.currentTimeMillis() >= retainUntil) {
+                stopRetaining();
+            }
+        }
+        if (!subscribers.isEmpty()) {
+            scheduleDrain();
+        }
+        return sequence;
+    }
+
+    private void evictBefore(long sequence) {
+        for (; retainedFrom < sequence; retainedFrom++) {
+            int slot = (int) (retainedFrom % backlog.length);
+            retainedBytes -= backlogSizes[slot];
+            backlog[slot] = null;
+            backlogSizes[slot] = 0;
+        }
+    }
+
+    private void stopRetaining() {
+        retaining = false;
+        Arrays.fill(backlog, null);
+        Arrays.fill(backlogSizes, 0);
+        retainedBytes = 0;
+    }
+
+    // Starts retention for a snapshot about to be streamed and returns the sequence it covers.
+    // Retention stays pinned until the matching release().
+    public synchronized long retain() {
+        long sequence = lastSequence.get();
+        if (!retaining) {
+            retainedFrom = sequence + 1;
+            retaining = true;
+        }
+        activeSnapshots++;
+        return sequence;
+    }
+
+    // The snapshot transfer finished or was abandoned; keep retaining long enough for the replica to subscribe
+    public synchronized void release() {
+        activeSnapshots--;
+        retainUntil = System.currentTimeMillis() + retainGraceMs;
+    }
+
+    public void subscribe(long fromSequence, ServerCallStreamObserver<IndexMutation> observer) {
+        Subscription subscription;
+        synchronized (this) {
+            if (!retaining || fromSequence + 1 < retainedFrom || fromSequence > lastSequence.get()) {
+                subscription = null;
+            } else {
+                subscription = new Subscription(observer, fromSequence);
+                subscribers.add(subscription);
+            }
+        }
+        if (subscription == null) {
+            observer.onError(outOfRange(fromSequence));
+            return;
+        }
+
+        observer.setOnCancelHandler(() -> unsubscribe(subscription));
+        observer.setOnReadyHandler(() -> drain(subscription));
+        drain(subscription);
+    }
+
+    // Sends backlog entries past the subscriber's cursor for as long as its stream accepts them.
+    // Also runs while the stream is not ready, so a stalled replica is cut off once the backlog moves past it.
+    private void drain(Subscription subscription) {
+        synchronized (subscription) {
+            while (!subscription.closed) {
+                long next = subscription.cursor + 1;
+                IndexMutation mutation = null;
+                synchronized (this) {
+                    if (!retaining) return;
+                    if (next >= retainedFrom) {
+                        // While retaining, sequences are taken and stored under this monitor, so every slot up to lastSequence is filled
+                        if (next > lastSequence.get()) return;
+                        mutation = backlog[(int) (next % backlog.length)];
+                    }
+                }
+                if (mutation == null) {
+                    // Evicted before this replica read it
+                    subscription.closed = true;
+                    unsubscribe(subscription);
+                    subscription.observer.onError(outOfRange(subscription.cursor));
+                    return;
+                }
+                if (!subscription.observer.isReady()) return;
+                subscription.observer.onNext(mutation.toBuilder().setSequence(next).build());
+                subscription.cursor = next;
+            }
+        }
+    }
+
+    private void scheduleDrain() {
+        if (!drainScheduled.compareAndSet(false, true)) return;
+        try {
+            sender.execute(() -> {
+                drainScheduled.set(false);
+                subscribers.forEach(this::drain);
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        synchronized (this) {
+            if (subscribers.remove(subscription)) {
+                // Give the replica time to reconnect before dropping the backlog
+                retainUntil = System.currentTimeMillis() + retainGraceMs;
+            }
+        }
+    }
+
+    private static RuntimeException outOfRange(long sequence) {
+        return Status.OUT_OF_RANGE
+                .withDescription("Sequence " + sequence + " is no longer available, fetch a new snapshot")
+                .asRuntimeException();
+    }
+
+    public void close() {
+        sender.shutdown();
+        for (Subscription subscription : subscribers) {
+            synchronized (subscription) {
+                if (subscription.closed) continue;
+                subscription.closed = true;
+                try {
+                    subscription.observer.onCompleted();
+                } catch (RuntimeException e) {
+                    // Already cancelled by the replica
+                }
+            }
+        }
+        subscribers.clear();
+    }
+}
@@ -6,19 +6,30 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class ServerProcessingEngine {
+    // How stale searches may be: buffered postings become searchable at the next refresh
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
     private final List<RPCServerWorker> workers = new ArrayList<>();
     private final IndexStore store;
     private final ExecutorService workerPool;
+    // Server-side tokenization is CPU bound, so it gets its own pool instead of running on gRPC threads
+    private final ExecutorService tokenizerPool;
+    private final ScheduledExecutorService refreshScheduler;
     private final Map<Integer, String> registeredClients = new ConcurrentHashMap<>();
     private int nextClientID = 1;
     private boolean running = true;
+    private ReplicaSyncWorker replicaSync;
 
     public ServerProcessingEngine(IndexStore store) {
         this.store = store;
-        this.workerPool = Executors.newFixedThreadPool(1);
+        this.workerPool = Executors.newFixedThreadPool(2);
+        this.tokenizerPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.refreshScheduler = Executors.newSingleThreadScheduledExecutor();
+        refreshScheduler.scheduleWithFixedDelay(store::refresh, REFRESH_INTERVAL_MS, REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
 
@@ -30,6 +41,26 @@ public class ServerProcessingEngine {
         }
     }
 
+    // Starts a read-only replica that mirrors the index of the primary server
+    public void initializeReplica(int serverPort, String primaryIP, int primaryPort) {
+        startReplicaSync(new ReplicaSyncWorker(store, primaryIP, primaryPort));
+        initialize(serverPort);
+    }
+
+    void startReplicaSync(ReplicaSyncWorker worker) {
+        replicaSync = worker;
+        workerPool.submit(worker);
+    }
+
+    public boolean isReplica() {
+        return replicaSync != null;
+    }
+
+    public void submitTokenization(Runnable task) {
+        // execute rather than submit: a failure must reach the task's own error handling, not a discarded Future
+        tokenizerPool.execute(task);
+    }
+
     public int registerClient(String clientAddress) {
         int clientId;
         synchronized (this) {
@@ -52,6 +83,13 @@ public class ServerProcessingEngine {
 
     public void shutdown() {
         running = false;
+        if (replicaSync != null) {
+            replicaSync.shutdown();
+        }
+        store.getReplicationLog().close();
+        tokenizerPool.shutdown();
+        refreshScheduler.shutdown();
+        store.refresh();
         workerPool.shutdown();
         workers.forEach(RPCServerWorker::shutdown);
         try {
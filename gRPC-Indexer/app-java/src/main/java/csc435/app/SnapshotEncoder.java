@@ -0,0 +1,109 @@
+package csc435.app;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.protobuf.UnsafeByteOperations;
+
+// Encodes snapshot chunks one at a time as the replica's stream asks for them, so the primary never holds
+// more than one encoded chunk per bootstrapping replica. Large posting lists are split across chunks.
+// Close it once the transfer ends, successfully or not, so the replication log can stop retaining mutations for it.
+public class SnapshotEncoder implements Iterator<IndexSnapshotChunk>, AutoCloseable {
+    private static final int CHUNK_DOCUMENTS = 4096;
+    private static final int CHUNK_POSTINGS = 65536;
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private final long sequence;
+    private final Iterator<Map.Entry<Long, String>> documents;
+    private final Map<Long, String> documentClients;
+    private final Iterator<Map.Entry<String, DocFreqPair[]>> terms;
+    private Map.Entry<String, DocFreqPair[]> term; // term being encoded, may continue into the next chunk
+    private int termOffset = 0;
+    private boolean started = false;
+    private final Runnable onClose;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    SnapshotEncoder(long sequence, Map<Long, String> documents, Map<Long, String> documentClients, IndexView view, Runnable onClose) {
+        this.sequence = sequence;
+        this.documents = documents.entrySet().iterator();
+        this.documentClients = documentClients;
+        this.terms = view.postings();
+        this.onClose = onClose;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            onClose.run();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        // Always ship at least one chunk so the replica learns the snapshot sequence
+        return !started || documents.hasNext() || term != null || terms.hasNext();
+    }
+
+    @Override
+    public IndexSnapshotChunk next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        started = true;
+
+        IndexSnapshotChunk.Builder chunk = IndexSnapshotChunk.newBuilder().setSequence(sequence);
+        long bytes = 0;
+        while (documents.hasNext() && chunk.getDocumentsCount() < CHUNK_DOCUMENTS && bytes < CHUNK_BYTES) {
+            Map.Entry<Long, String> document = documents.next();
+            chunk.addDocuments(IndexSnapshotChunk.Document.newBuilder()
+                    .setDocumentNumber(document.getKey())
+                    .setDocumentPath(document.getValue())
+                    .setClientId(clientId(document.getKey())));
+            bytes += 16 + document.getValue().length();
+        }
+
+        int postings = 0;
+        while (postings < CHUNK_POSTINGS && bytes < CHUNK_BYTES) {
+            if (term == null) {
+                if (!terms.hasNext()) break;
+                term = terms.next();
+                termOffset = 0;
+            }
+
+            DocFreqPair[] termPostings = term.getValue();
+            IndexSnapshotChunk.TermPostings.Builder encoded = IndexSnapshotChunk.TermPostings.newBuilder()
+                    .setTerm(term.getKey());
+            while (termOffset < termPostings.length && postings < CHUNK_POSTINGS && bytes < CHUNK_BYTES) {
+                DocFreqPair posting = termPostings[termOffset++];
+                IndexSnapshotChunk.Posting.Builder snapshotPosting = IndexSnapshotChunk.Posting.newBuilder()
+                        .setClientId(posting.clientId)
+                        .setDocumentNumber(posting.documentNumber)
+                        .setWordFrequency(posting.wordFrequency);
+                if (posting.positions != null) {
+                    // Published position blocks are never modified, so they can be sent without a copy
+                    snapshotPosting.setPositions(UnsafeByteOperations.unsafeWrap(posting.positions));
+                    bytes += posting.positions.length;
+                }
+                encoded.addPostings(snapshotPosting);
+                bytes += 16;
+                postings++;
+            }
+            chunk.addTerms(encoded);
+            bytes += term.getKey().length();
+            if (termOffset == termPostings.length) {
+                term = null;
+            }
+        }
+        return chunk.build();
+    }
+
+    // The document table keeps client IDs as strings; the wire format uses the same int32 as postings and mutations
+    private int clientId(long documentNumber) {
+        String clientId = documentClients.get(documentNumber);
+        return clientId == null ? 0 : Integer.parseInt(clientId);
+    }
+}
@@ -0,0 +1,109 @@
+package csc435.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.protobuf.ByteString;
+
+public class DocumentTokenizerTest {
+    private static final String DOCUMENT = "The quick brown-fox jumped; QUICK_brown foxes\r\n"
+            + "caf\u00e9 na\u00efve \u212AELVIN TITLE 1234 abc quick brown";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DocumentTokenizer tokenizeChunks(byte[] bytes, int chunkSize) {
+        List<ByteString> chunks = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            chunks.add(ByteString.copyFrom(bytes, offset, Math.min(chunkSize, bytes.length - offset)));
+        }
+        return DocumentTokenizer.tokenize(chunks, true);
+    }
+
+    private static void assertSameTerms(DocumentTokenizer expected, DocumentTokenizer actual) {
+        assertEquals(expected.getWordFrequencies(), actual.getWordFrequencies());
+        Map<String, ByteString> expectedPositions = expected.getTermPositions();
+        Map<String, ByteString> actualPositions = actual.getTermPositions();
+        assertEquals(expectedPositions.keySet(), actualPositions.keySet());
+        expectedPositions.forEach((term, positions) ->
+                assertArrayEquals(term, positions.toByteArray(), actualPositions.get(term).toByteArray()));
+    }
+
+    @Test
+    public void clientAndServerPathsProduceTheSameIndex() throws IOException {
+        byte[] bytes = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+        Path file = folder.newFile("document.txt").toPath();
+        Files.write(file, bytes);
+
+        DocumentTokenizer client = DocumentTokenizer.tokenize(file, true);
+        // Every chunk size splits terms and multi-byte characters at a different place
+        for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+            assertSameTerms(client, tokenizeChunks(bytes, chunkSize));
+        }
+    }
+
+    @Test
+    public void keepsTermsOfAtLeastFourCharacters() {
+        DocumentTokenizer tokenizer = tokenizeChunks(DOCUMENT.getBytes(StandardCharsets.UTF_8), 8);
+        Map<String, Long> frequencies = tokenizer.getWordFrequencies();
+        assertEquals(Long.valueOf(2), frequencies.get("quick"));
+        assertEquals(Long.valueOf(1), frequencies.get("brown-fox"));
+        assertEquals(Long.valueOf(1), frequencies.get("quick_brown"));
+        assertEquals(Long.valueOf(1), frequencies.get("1234"));
+        assertFalse(frequencies.containsKey("the"));
+        assertFalse(frequencies.containsKey("abc"));
+    }
+
+    @Test
+    public void nonAsciiCharactersEndTerms() {
+        Map<String, Long> frequencies = DocumentTokenizer.tokenize(
+                List.of(ByteString.copyFromUtf8("caf\u00e9bar na\u00efvely")), false).getWordFrequencies();
+        assertEquals(Map.of("vely", 1L), frequencies);
+    }
+
+    @Test
+    public void kelvinSignIsNotFoldedToK() {
+        assertEquals(List.of("elvin"), DocumentTokenizer.splitTerms("\u212AELVIN"));
+    }
+
+    @Test
+    public void lowerCasingIgnoresTheDefaultLocale() throws IOException {
+        Locale original = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try {
+            Path file = folder.newFile("turkish.txt").toPath();
+            Files.write(file, "TITLE".getBytes(StandardCharsets.UTF_8));
+            assertTrue(DocumentTokenizer.tokenize(file, false).getWordFrequencies().containsKey("title"));
+            assertEquals(List.of("title"), DocumentTokenizer.splitTerms("TITLE"));
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+    @Test
+    public void splitTermsKeepsQueryOrderAndDuplicates() {
+        assertEquals(List.of("dogs", "bite", "dogs"), DocumentTokenizer.splitTerms("\"Dogs, bite the DOGS\""));
+    }
+
+    @Test
+    public void positionsCountIndexedTermsOnly() {
+        DocumentTokenizer tokenizer = DocumentTokenizer.tokenize(List.of(ByteString.copyFromUtf8("the quick a brown")), true);
+        assertArrayEquals(new int[] {0}, PositionCodec.decode(tokenizer.getTermPositions().get("quick").toByteArray()));
+        assertArrayEquals(new int[] {1}, PositionCodec.decode(tokenizer.getTermPositions().get("brown").toByteArray()));
+    }
+}
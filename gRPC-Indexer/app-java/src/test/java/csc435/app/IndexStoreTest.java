@@ -0,0 +1,94 @@
+package csc435.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class IndexStoreTest {
+
+    private static long index(IndexStore store, String documentPath, String... terms) {
+        HashMap<String, Long> wordFrequencies = new HashMap<>();
+        for (String term : terms) {
+            wordFrequencies.merge(term, 1L, Long::sum);
+        }
+        return store.indexDocument(1, documentPath, wordFrequencies, Map.of());
+    }
+
+    private static Set<Long> documents(List<DocFreqPair> postings) {
+        return postings.stream().map(posting -> posting.documentNumber).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void postingsBecomeSearchableOnRefresh() {
+        IndexStore store = new IndexStore();
+        long first = index(store, "/docs/first.txt", "delta");
+        assertTrue(store.lookupIndex("delta").isEmpty());
+
+        store.refresh();
+        assertEquals(Set.of(first), documents(store.lookupIndex("delta")));
+    }
+
+    @Test
+    public void pinnedViewIsUnchangedByLaterRefreshes() {
+        IndexStore store = new IndexStore();
+        long first = index(store, "/docs/first.txt", "delta");
+        IndexView empty = store.currentView();
+        store.refresh();
+        IndexView afterFirst = store.currentView();
+
+        long second = index(store, "/docs/second.txt", "delta", "omega");
+        store.refresh();
+
+        assertTrue(empty.lookup("delta").isEmpty());
+        assertEquals(Set.of(first), documents(afterFirst.lookup("delta")));
+        assertTrue(afterFirst.lookup("omega").isEmpty());
+        assertEquals(Set.of(first, second), documents(store.lookupIndex("delta")));
+    }
+
+    @Test
+    public void hotTermAcrossManyRefreshesKeepsFewSegments() {
+        IndexStore store = new IndexStore();
+        List<Long> expected = new ArrayList<>();
+        int refreshes = 1000;
+        for (int i = 0; i < refreshes; i++) {
+            expected.add(index(store, "/docs/" + i + ".txt", "hot", "term" + i));
+            store.refresh();
+        }
+
+        IndexView view = store.currentView();
+        // Segment sizes stay geometric, so a thousand refreshes leave about log2(1000) segments
+        assertTrue("segments: " + view.segmentCount(), view.segmentCount() <= 2 * 10);
+
+        // Published in refresh order, across every segment
+        List<DocFreqPair> hot = view.lookup("hot");
+        assertEquals(refreshes, hot.size());
+        for (int i = 0; i < refreshes; i++) {
+            assertEquals(expected.get(i).longValue(), hot.get(i).documentNumber);
+        }
+        List<Long> iterated = new ArrayList<>();
+        hot.forEach(posting -> iterated.add(posting.documentNumber));
+        assertEquals(expected, iterated);
+
+        for (int i = 0; i < refreshes; i++) {
+            assertEquals(Set.of(expected.get(i)), documents(view.lookup("term" + i)));
+        }
+    }
+
+    @Test
+    public void refreshWithNothingBufferedKeepsTheView() {
+        IndexStore store = new IndexStore();
+        index(store, "/docs/first.txt", "delta");
+        store.refresh();
+        IndexView view = store.currentView();
+        store.refresh();
+        assertTrue(view == store.currentView());
+    }
+}
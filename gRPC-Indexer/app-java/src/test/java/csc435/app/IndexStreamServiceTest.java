@@ -0,0 +1,164 @@
+package csc435.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+public class IndexStreamServiceTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final String serverName = InProcessServerBuilder.generateName();
+    private ServerProcessingEngine engine;
+    private Server server;
+    private ManagedChannel channel;
+
+    private void start(IndexStore store) throws IOException {
+        engine = new ServerProcessingEngine(store);
+        server = InProcessServerBuilder.forName(serverName)
+                .addService(new FileRetrievalEngineService(store, engine))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).build();
+    }
+
+    @After
+    public void stop() {
+        if (channel != null) channel.shutdownNow();
+        if (engine != null) {
+            engine.shutdown();
+            server.shutdownNow();
+        }
+    }
+
+    private static DocumentChunk.Builder header(String documentPath) {
+        return DocumentChunk.newBuilder().setClientId(3).setDocumentPath(documentPath).setPositional(true);
+    }
+
+    // Sends the chunks as given, then half-closes and waits for the reply
+    private IndexRep stream(List<DocumentChunk> chunks) throws InterruptedException, TimeoutException {
+        CompletableFuture<IndexRep> reply = new CompletableFuture<>();
+        StreamObserver<DocumentChunk> requestObserver = FileRetrievalEngineGrpc.newStub(channel)
+                .computeIndexStream(new StreamObserver<IndexRep>() {
+            @Override
+            public void onNext(IndexRep response) {
+                reply.complete(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                reply.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {}
+        });
+        chunks.forEach(requestObserver::onNext);
+        requestObserver.onCompleted();
+        try {
+            return reply.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw (StatusRuntimeException) e.getCause();
+        }
+    }
+
+    private void assertRejected(Status.Code code, List<DocumentChunk> chunks) throws InterruptedException, TimeoutException {
+        try {
+            stream(chunks);
+            fail("Stream was accepted");
+        } catch (StatusRuntimeException e) {
+            assertEquals(code, e.getStatus().getCode());
+        }
+    }
+
+    @Test
+    public void chunkedDocumentIsIndexedLikeTheWholeDocument() throws IOException, InterruptedException, TimeoutException {
+        IndexStore store = new IndexStore();
+        start(store);
+        byte[] document = "Streaming documents across many small chunks, chunk after chunk".getBytes(StandardCharsets.UTF_8);
+
+        List<DocumentChunk> chunks = new ArrayList<>();
+        for (int offset = 0; offset < document.length; offset += 5) {
+            DocumentChunk.Builder chunk = offset == 0 ? header("/docs/streamed.txt") : DocumentChunk.newBuilder();
+            chunks.add(chunk.setData(ByteString.copyFrom(document, offset, Math.min(5, document.length - offset))).build());
+        }
+        assertEquals(document.length, stream(chunks).getIndexedBytes());
+
+        DocumentTokenizer expected = DocumentTokenizer.tokenize(List.of(ByteString.copyFrom(document)), true);
+        store.refresh();
+        Map<String, Long> indexed = new HashMap<>();
+        for (String term : expected.getWordFrequencies().keySet()) {
+            List<DocFreqPair> postings = store.lookupIndex(term);
+            assertEquals(term, 1, postings.size());
+            indexed.put(term, postings.get(0).wordFrequency);
+            assertArrayEquals(term, expected.getTermPositions().get(term).toByteArray(), postings.get(0).positions);
+            assertEquals(3, postings.get(0).clientId);
+        }
+        assertEquals(expected.getWordFrequencies(), indexed);
+    }
+
+    @Test
+    public void headerOnlyStreamRegistersAnEmptyDocument() throws IOException, InterruptedException, TimeoutException {
+        IndexStore store = new IndexStore();
+        start(store);
+
+        IndexRep reply = stream(List.of(header("/docs/empty.txt").build()));
+        assertEquals(0, reply.getIndexedBytes());
+        assertTrue(reply.getMessage().contains("/docs/empty.txt"));
+        assertEquals("/docs/empty.txt", store.getDocument(1));
+        assertEquals("3", store.getClientId(1));
+    }
+
+    @Test
+    public void streamWithoutChunksIsInvalid() throws IOException, InterruptedException, TimeoutException {
+        start(new IndexStore());
+        assertRejected(Status.Code.INVALID_ARGUMENT, List.of());
+    }
+
+    @Test
+    public void indexingFailureIsReportedAsInternal() throws IOException, InterruptedException, TimeoutException {
+        start(new IndexStore() {
+            @Override
+            public long indexDocument(int clientId, String documentPath, HashMap<String, Long> wordFrequencies, Map<String, ByteString> termPositions) {
+                throw new IllegalStateException("disk full");
+            }
+        });
+        assertRejected(Status.Code.INTERNAL, List.of(header("/docs/failing.txt").setData(ByteString.copyFromUtf8("some words")).build()));
+    }
+
+    @Test
+    public void replicaRejectsStreamedDocuments() throws IOException, InterruptedException, TimeoutException {
+        IndexStore store = new IndexStore();
+        start(store);
+        // The primary does not exist; the replica keeps retrying in the background until shutdown
+        engine.startReplicaSync(new ReplicaSyncWorker(store,
+                InProcessChannelBuilder.forName(InProcessServerBuilder.generateName()).build(), "missing-primary"));
+
+        assertRejected(Status.Code.FAILED_PRECONDITION, List.of(header("/docs/replica.txt").setData(ByteString.copyFromUtf8("words")).build()));
+        assertTrue(store.getDocument(1) == null);
+    }
+}
@@ -0,0 +1,82 @@
+package csc435.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PhraseMatcherTest {
+
+    @Test
+    public void countsEveryOccurrenceOfAPhrase() {
+        int[] quick = {0, 10, 20};
+        int[] brown = {1, 12, 21};
+        assertEquals(2, PhraseMatcher.countPhrases(new int[][] {quick, brown}));
+    }
+
+    @Test
+    public void countsPhrasesWithRepeatedTerms() {
+        // "that that that" in a document of five consecutive "that"s
+        int[] that = {0, 1, 2, 3, 4};
+        assertEquals(3, PhraseMatcher.countPhrases(new int[][] {that, that, that}));
+
+        // "dogs bite dogs" in "dogs bite dogs bite dogs"
+        int[] dogs = {0, 2, 4};
+        int[] bite = {1, 3};
+        assertEquals(2, PhraseMatcher.countPhrases(new int[][] {dogs, bite, dogs}));
+    }
+
+    @Test
+    public void requiresQueryOrder() {
+        int[] first = {5};
+        int[] second = {4};
+        assertEquals(0, PhraseMatcher.countPhrases(new int[][] {first, second}));
+    }
+
+    @Test
+    public void singleTermPhraseCountsOccurrences() {
+        assertEquals(3, PhraseMatcher.countPhrases(new int[][] {{1, 5, 9}}));
+    }
+
+    @Test
+    public void distanceIsTheSpanOfTheWindow() {
+        int[] signal = {10};
+        int[] noise = {13};
+        assertTrue(PhraseMatcher.withinDistance(new int[][] {signal, noise}, 3));
+        assertFalse(PhraseMatcher.withinDistance(new int[][] {signal, noise}, 2));
+    }
+
+    @Test
+    public void distanceIgnoresOrder() {
+        int[] signal = {13};
+        int[] noise = {10};
+        assertTrue(PhraseMatcher.withinDistance(new int[][] {signal, noise}, 3));
+    }
+
+    @Test
+    public void distanceZeroOnlyMatchesTheSamePosition() {
+        assertFalse(PhraseMatcher.withinDistance(new int[][] {{4}, {5}}, 0));
+        // The same term on both sides of NEAR shares its positions
+        assertTrue(PhraseMatcher.withinDistance(new int[][] {{4, 9}, {4, 9}}, 0));
+    }
+
+    @Test
+    public void distanceFindsTheTightestWindowAcrossManyPositions() {
+        int[] alpha = {0, 50, 100};
+        int[] beta = {30, 98};
+        int[] gamma = {60, 103};
+        assertTrue(PhraseMatcher.withinDistance(new int[][] {alpha, beta, gamma}, 5));
+        assertFalse(PhraseMatcher.withinDistance(new int[][] {alpha, beta, gamma}, 4));
+    }
+
+    @Test
+    public void distanceFailsWhenATermIsMissing() {
+        assertFalse(PhraseMatcher.withinDistance(new int[][] {{1, 2}, {}}, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void distanceHandlesTheLargestSpan() {
+        assertTrue(PhraseMatcher.withinDistance(new int[][] {{0}, {Integer.MAX_VALUE}}, Integer.MAX_VALUE));
+    }
+}
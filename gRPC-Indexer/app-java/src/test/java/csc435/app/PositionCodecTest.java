@@ -0,0 +1,68 @@
+package csc435.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PositionCodecTest {
+
+    private static byte[] encode(int... positions) {
+        PositionCodec.Encoder encoder = new PositionCodec.Encoder();
+        for (int position : positions) {
+            encoder.add(position);
+        }
+        return encoder.toByteArray();
+    }
+
+    @Test
+    public void roundTripsSmallGaps() {
+        int[] positions = {0, 1, 2, 7, 127};
+        byte[] encoded = encode(positions);
+        assertEquals(positions.length, encoded.length);
+        assertArrayEquals(positions, PositionCodec.decode(encoded));
+    }
+
+    @Test
+    public void roundTripsEveryVarintLength() {
+        // Gaps of 127, 128, 2^14, 2^21 and 2^28 take one to five bytes
+        int[] positions = {127, 255, 255 + (1 << 14), 255 + (1 << 14) + (1 << 21), 255 + (1 << 14) + (1 << 21) + (1 << 28)};
+        byte[] encoded = encode(positions);
+        assertEquals(1 + 2 + 3 + 4 + 5, encoded.length);
+        assertArrayEquals(positions, PositionCodec.decode(encoded));
+    }
+
+    @Test
+    public void roundTripsLargestPosition() {
+        int[] positions = {0, Integer.MAX_VALUE};
+        byte[] encoded = encode(positions);
+        assertEquals(1 + 5, encoded.length);
+        assertArrayEquals(positions, PositionCodec.decode(encoded));
+    }
+
+    @Test
+    public void decodesEmptyBlock() {
+        assertArrayEquals(new int[0], PositionCodec.decode(encode()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedVarint() {
+        byte[] encoded = encode(0, 1 << 20);
+        PositionCodec.decode(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOverlongVarint() {
+        PositionCodec.decode(new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPositionsPastIntegerRange() {
+        byte[] max = encode(Integer.MAX_VALUE);
+        byte[] encoded = Arrays.copyOf(max, max.length + 1);
+        encoded[max.length] = 1;
+        PositionCodec.decode(encoded);
+    }
+}
@@ -0,0 +1,158 @@
+package csc435.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+
+import csc435.app.FileRetrievalEngineGrpc.FileRetrievalEngineBlockingStub;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+public class PositionalSearchTest {
+    private final String serverName = InProcessServerBuilder.generateName();
+    private IndexStore store;
+    private ServerProcessingEngine engine;
+    private Server server;
+    private ManagedChannel channel;
+    private FileRetrievalEngineBlockingStub stub;
+
+    @Before
+    public void start() throws IOException {
+        store = new IndexStore();
+        engine = new ServerProcessingEngine(store);
+        server = InProcessServerBuilder.forName(serverName)
+                .addService(new FileRetrievalEngineService(store, engine))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).build();
+        stub = FileRetrievalEngineGrpc.newBlockingStub(channel);
+    }
+
+    @After
+    public void stop() {
+        channel.shutdownNow();
+        engine.shutdown();
+        server.shutdownNow();
+    }
+
+    private void index(String documentPath, String text, boolean positional) {
+        DocumentTokenizer tokenizer = DocumentTokenizer.tokenize(List.of(ByteString.copyFromUtf8(text)), positional);
+        stub.computeIndex(IndexReq.newBuilder()
+                .setClientId(1)
+                .setDocumentPath(documentPath)
+                .putAllWordFrequencies(tokenizer.getWordFrequencies())
+                .putAllTermPositions(tokenizer.getTermPositions())
+                .build());
+    }
+
+    private SearchRep search(SearchReq.Operator operator, int distance, String... terms) {
+        stub.refresh(Empty.getDefaultInstance());
+        return stub.computeSearch(SearchReq.newBuilder()
+                .addAllTerms(List.of(terms))
+                .setOperator(operator)
+                .setDistance(distance)
+                .build());
+    }
+
+    private static Set<String> documents(SearchRep reply) {
+        return reply.getSearchResultsList().stream()
+                .map(SearchRep.SearchResult::getDocumentPath)
+                .collect(Collectors.toSet());
+    }
+
+    private static void assertInvalid(Runnable call) {
+        try {
+            call.run();
+            fail("Request was accepted");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.INVALID_ARGUMENT, e.getStatus().getCode());
+        }
+    }
+
+    @Test
+    public void phraseRequiresTermsInQueryOrder() {
+        index("/docs/ordered.txt", "quick brown foxes, then quick brown again", true);
+        index("/docs/reversed.txt", "brown quick foxes", true);
+        index("/docs/apart.txt", "quick lazy brown", true);
+
+        SearchRep reply = search(SearchReq.Operator.PHRASE, 0, "quick", "brown");
+        assertEquals(Set.of("/docs/ordered.txt"), documents(reply));
+        assertEquals(2, reply.getSearchResults(0).getFrequency());
+        assertEquals(Set.of("/docs/reversed.txt"), documents(search(SearchReq.Operator.PHRASE, 0, "brown", "quick")));
+    }
+
+    @Test
+    public void nearMatchesWithinTheDistanceInEitherOrder() {
+        index("/docs/forward.txt", "alpha word word word beta", true);
+        index("/docs/backward.txt", "beta word word word alpha", true);
+        index("/docs/far.txt", "alpha word word word word word beta", true);
+
+        assertEquals(Set.of("/docs/forward.txt", "/docs/backward.txt"), documents(search(SearchReq.Operator.NEAR, 4, "alpha", "beta")));
+        assertEquals(Set.of(), documents(search(SearchReq.Operator.NEAR, 3, "alpha", "beta")));
+        assertEquals(Set.of("/docs/forward.txt", "/docs/backward.txt", "/docs/far.txt"),
+                documents(search(SearchReq.Operator.NEAR, 6, "alpha", "beta")));
+    }
+
+    @Test
+    public void documentsWithoutPositionsOnlyMatchAndQueries() {
+        index("/docs/positional.txt", "quick brown", true);
+        index("/docs/plain.txt", "quick brown", false);
+
+        assertEquals(Set.of("/docs/positional.txt"), documents(search(SearchReq.Operator.PHRASE, 0, "quick", "brown")));
+        assertEquals(Set.of("/docs/positional.txt"), documents(search(SearchReq.Operator.NEAR, 5, "quick", "brown")));
+        assertEquals(Set.of("/docs/positional.txt", "/docs/plain.txt"), documents(search(SearchReq.Operator.AND, 0, "quick", "brown")));
+    }
+
+    @Test
+    public void negativeNearDistanceIsRejected() {
+        index("/docs/forward.txt", "alpha beta", true);
+        assertInvalid(() -> search(SearchReq.Operator.NEAR, -1, "alpha", "beta"));
+    }
+
+    private void indexRaw(Map<String, Long> wordFrequencies, String term, byte... positions) {
+        stub.computeIndex(IndexReq.newBuilder()
+                .setClientId(1)
+                .setDocumentPath("/docs/bad.txt")
+                .putAllWordFrequencies(wordFrequencies)
+                .putTermPositions(term, ByteString.copyFrom(positions))
+                .build());
+    }
+
+    @Test
+    public void malformedPositionsAreRejectedAtIngest() {
+        Map<String, Long> frequencies = new HashMap<>(Map.of("alpha", 2L));
+        // Ends inside a varint
+        assertInvalid(() -> indexRaw(frequencies, "alpha", (byte) 3, (byte) 0x80));
+        // Overlong varint
+        assertInvalid(() -> indexRaw(frequencies, "alpha", (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 1));
+        // Zero gap: the same position twice
+        assertInvalid(() -> indexRaw(frequencies, "alpha", (byte) 3, (byte) 0));
+        // Fewer positions than the frequency
+        assertInvalid(() -> indexRaw(frequencies, "alpha", (byte) 3));
+        // Positions for a term the document does not contain
+        assertInvalid(() -> indexRaw(frequencies, "gamma", (byte) 3, (byte) 1));
+
+        indexRaw(frequencies, "alpha", (byte) 3, (byte) 1);
+        assertEquals(Set.of("/docs/bad.txt"), documents(search(SearchReq.Operator.NEAR, 1, "alpha")));
+        // Only the valid request registered a document
+        assertNull(store.getDocument(2));
+    }
+}
@@ -0,0 +1,246 @@
+package csc435.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+public class ReplicationTest {
+    private static final long TIMEOUT_MS = 10_000;
+
+    private final String serverName = InProcessServerBuilder.generateName();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private IndexStore primaryStore;
+    private ServerProcessingEngine primaryEngine;
+    private Server server;
+    private ReplicaSyncWorker replicaSync;
+    private Thread replicaThread;
+
+    private void startPrimary(ReplicationLog replicationLog) throws IOException {
+        primaryStore = new IndexStore(replicationLog);
+        primaryEngine = new ServerProcessingEngine(primaryStore);
+        server = InProcessServerBuilder.forName(serverName)
+                .addService(new FileRetrievalEngineService(primaryStore, primaryEngine))
+                .build()
+                .start();
+    }
+
+    @After
+    public void stopAll() throws InterruptedException {
+        if (replicaSync != null) {
+            replicaSync.shutdown();
+            replicaThread.join(TIMEOUT_MS);
+        }
+        channels.forEach(ManagedChannel::shutdownNow);
+        if (primaryEngine != null) {
+            primaryEngine.shutdown();
+            server.shutdownNow();
+        }
+    }
+
+    private ManagedChannel channel() {
+        ManagedChannel channel = InProcessChannelBuilder.forName(serverName).build();
+        channels.add(channel);
+        return channel;
+    }
+
+    private Iterator<IndexMutation> streamMutations(long fromSequence) {
+        return FileRetrievalEngineGrpc.newBlockingStub(channel())
+                .streamMutations(MutationStreamReq.newBuilder().setFromSequence(fromSequence).build());
+    }
+
+    private static long index(IndexStore store, String documentPath, String... terms) {
+        return index(store, documentPath, Map.of(), terms);
+    }
+
+    private static long index(IndexStore store, String documentPath, Map<String, ByteString> termPositions, String... terms) {
+        HashMap<String, Long> wordFrequencies = new HashMap<>();
+        for (String term : terms) {
+            wordFrequencies.merge(term, 1L, Long::sum);
+        }
+        return store.indexDocument(7, documentPath, wordFrequencies, termPositions);
+    }
+
+    private static DocFreqPair awaitPosting(IndexStore store, String term, long documentNumber) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            store.refresh();
+            for (DocFreqPair posting : store.lookupIndex(term)) {
+                if (posting.documentNumber == documentNumber) return posting;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail("Posting for " + term + " in document " + documentNumber + " never became searchable");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static void assertOutOfRange(Iterator<IndexMutation> feed) {
+        try {
+            feed.forEachRemaining(mutation -> {});
+            fail("Feed ended without OUT_OF_RANGE");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.OUT_OF_RANGE, e.getStatus().getCode());
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void replicaBootstrapsFromSnapshotThenFollowsTheFeed() throws IOException, InterruptedException {
+        startPrimary(new ReplicationLog());
+        PositionCodec.Encoder positions = new PositionCodec.Encoder();
+        positions.add(3);
+        positions.add(700);
+        byte[] encodedPositions = positions.toByteArray();
+
+        long first = index(primaryStore, "/docs/first.txt", Map.of("alpha", ByteString.copyFrom(encodedPositions)), "alpha");
+        primaryStore.refresh();
+        // Still buffered on the primary when the snapshot is taken
+        long second = index(primaryStore, "/docs/second.txt", "alpha", "beta");
+
+        IndexStore replicaStore = new IndexStore();
+        replicaSync = new ReplicaSyncWorker(replicaStore, channel(), serverName);
+        replicaThread = new Thread(replicaSync);
+        replicaThread.start();
+
+        DocFreqPair restored = awaitPosting(replicaStore, "alpha", first);
+        assertArrayEquals(encodedPositions, restored.positions);
+        assertEquals(7, restored.clientId);
+        awaitPosting(replicaStore, "beta", second);
+        assertEquals("/docs/first.txt", replicaStore.getDocument(first));
+        assertEquals("/docs/second.txt", replicaStore.getDocument(second));
+        assertEquals("7", replicaStore.getClientId(first));
+
+        // Indexed after the replica bootstrapped, so it can only arrive through the mutation feed
+        long third = index(primaryStore, "/docs/third.txt", "gamma", "gamma");
+        assertEquals(2, awaitPosting(replicaStore, "gamma", third).wordFrequency);
+        assertEquals("/docs/third.txt", replicaStore.getDocument(third));
+        assertEquals("7", replicaStore.getClientId(third));
+        assertEquals(2, replicaStore.lookupIndex("alpha").size());
+    }
+
+    @Test
+    public void snapshotSplitsLargePostingListsAcrossChunks() throws IOException {
+        startPrimary(new ReplicationLog());
+        int documents = 70_000;
+        for (int i = 0; i < documents; i++) {
+            index(primaryStore, "/docs/" + i + ".txt", "common");
+            if (i % 10_000 == 0) primaryStore.refresh();
+        }
+
+        List<IndexSnapshotChunk> received = new ArrayList<>();
+        try (SnapshotEncoder chunks = primaryStore.snapshot()) {
+            chunks.forEachRemaining(received::add);
+        }
+        assertTrue(received.size() > 1);
+
+        IndexStore replicaStore = new IndexStore();
+        assertEquals(documents, replicaStore.loadSnapshot(received.iterator()));
+        assertEquals(documents, replicaStore.lookupIndex("common").stream()
+                .mapToLong(posting -> posting.documentNumber).distinct().count());
+    }
+
+    @Test(timeout = 30_000)
+    public void retentionStaysPinnedWhileASnapshotIsStreamed() throws IOException {
+        // No grace period: only the open snapshot keeps mutations retained
+        startPrimary(new ReplicationLog(1000, Long.MAX_VALUE, 0));
+        SnapshotEncoder snapshot = primaryStore.snapshot();
+        long sequence = snapshot.getSequence();
+        snapshot.forEachRemaining(chunk -> {});
+
+        for (int i = 0; i < 5; i++) {
+            index(primaryStore, "/docs/" + i + ".txt", "zeta");
+        }
+        Iterator<IndexMutation> feed = streamMutations(sequence);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(sequence + i, feed.next().getSequence());
+        }
+        snapshot.close();
+    }
+
+    @Test(timeout = 30_000)
+    public void retentionEndsAfterTheSnapshotIsReleased() throws IOException {
+        startPrimary(new ReplicationLog(1000, Long.MAX_VALUE, 0));
+        long sequence;
+        try (SnapshotEncoder snapshot = primaryStore.snapshot()) {
+            sequence = snapshot.getSequence();
+        }
+
+        // Nothing is pinned or subscribed, so this append drops the backlog
+        index(primaryStore, "/docs/late.txt", "zeta");
+        assertOutOfRange(streamMutations(sequence));
+    }
+
+    @Test(timeout = 30_000)
+    public void stalledReplicaIsCutOffByMutationCount() throws IOException {
+        startPrimary(new ReplicationLog(100, Long.MAX_VALUE, 60_000));
+        long sequence;
+        try (SnapshotEncoder snapshot = primaryStore.snapshot()) {
+            sequence = snapshot.getSequence();
+        }
+        Iterator<IndexMutation> feed = streamMutations(sequence);
+
+        index(primaryStore, "/docs/first.txt", "epsilon");
+        assertEquals(sequence + 1, feed.next().getSequence());
+
+        // The replica stops reading while the primary overwrites the whole backlog
+        for (int i = 0; i < 200; i++) {
+            index(primaryStore, "/docs/" + i + ".txt", "epsilon");
+        }
+        assertOutOfRange(feed);
+    }
+
+    @Test(timeout = 30_000)
+    public void stalledReplicaIsCutOffByBacklogBytes() throws IOException {
+        startPrimary(new ReplicationLog(100_000, 16 * 1024, 60_000));
+        long sequence;
+        try (SnapshotEncoder snapshot = primaryStore.snapshot()) {
+            sequence = snapshot.getSequence();
+        }
+        Iterator<IndexMutation> feed = streamMutations(sequence);
+
+        index(primaryStore, "/docs/first.txt", "epsilon");
+        assertEquals(sequence + 1, feed.next().getSequence());
+
+        // Far fewer mutations than the count limit, but each carries a large term map
+        String[] terms = new String[500];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = "term" + i;
+        }
+        for (int i = 0; i < 50; i++) {
+            index(primaryStore, "/docs/" + i + ".txt", terms);
+        }
+        assertOutOfRange(feed);
+    }
+
+    @Test(timeout = 30_000)
+    public void unknownSequenceIsOutOfRange() throws IOException {
+        startPrimary(new ReplicationLog());
+        long sequence = primaryStore.snapshot().getSequence();
+        Iterator<IndexMutation> feed = streamMutations(sequence + 5);
+        try {
+            feed.hasNext();
+            fail("Subscribed past the end of the log");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.OUT_OF_RANGE, e.getStatus().getCode());
+        }
+    }
+}